@@ -0,0 +1,534 @@
+/*
+ * Licensed under MIT License
+ */
+package com.community.cordova.printer;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.pdf.PdfRenderer;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DeflaterOutputStream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Re-renders a PDF at the printer resolution and writes a compact copy
+ * where every page is a single downsampled JPEG, 8-bit gray or 1-bit image.
+ */
+public class PdfOptimizer {
+
+    private static final String LOG_TAG = "PdfOptimizer";
+
+    private static final long DEFAULT_MIN_SIZE = 1024 * 1024;
+    private static final long DEFAULT_TIMEOUT = 30000;
+    private static final int DEFAULT_QUALITY = 75;
+    private static final int DEFAULT_MAX_DPI = 200;
+    private static final int MAX_WORKERS = 3;
+    private static final long MAX_PIXELS = 8 * 1024 * 1024;
+    private static final int HEADER_SCAN = 1024;
+
+    private final long minSize;
+    private final long timeout;
+    private final int quality;
+    private final int dpi;
+    private final boolean grayscale;
+    private final boolean monochrome;
+
+    /**
+     * Constructor.
+     *
+     * @param settings  The "optimize" print options.
+     * @param dpi       The negotiated printer resolution.
+     * @param grayscale true if the negotiated color mode is monochrome.
+     */
+    public PdfOptimizer(@NonNull JSONObject settings, int dpi, boolean grayscale) {
+        this.minSize = settings.optLong("minSize", DEFAULT_MIN_SIZE);
+        this.timeout = settings.optLong("timeout", DEFAULT_TIMEOUT);
+        this.quality = Math.max(1, Math.min(100, settings.optInt("quality", DEFAULT_QUALITY)));
+        this.dpi = Math.max(36, Math.min(dpi, settings.optInt("dpi", DEFAULT_MAX_DPI)));
+        this.monochrome = settings.optBoolean("monochrome", false);
+        this.grayscale = grayscale || monochrome;
+    }
+
+    /**
+     * Gets a key identifying the output of this optimizer for a given source.
+     *
+     * @return The key.
+     */
+    @NonNull
+    public String getCacheKey() {
+        return dpi + ":" + (monochrome ? "mono" : grayscale ? "gray" : "color") + ":" + quality;
+    }
+
+    /**
+     * Checks if a source file is a PDF large enough to be worth optimizing.
+     *
+     * @param source The source file.
+     * @return true if the file is a PDF and reaches the configured size threshold.
+     * @throws IOException If the file header cannot be read.
+     */
+    public boolean shouldOptimize(@NonNull File source) throws IOException {
+        if (source.length() < minSize) {
+            return false;
+        }
+
+        // The PDF header may be preceded by junk within the first 1024 bytes
+        byte[] header = new byte[HEADER_SCAN];
+        int length = 0;
+
+        try (InputStream input = new FileInputStream(source)) {
+            int bytesRead;
+            while (length < header.length && (bytesRead = input.read(header, length, header.length - length)) > 0) {
+                length += bytesRead;
+            }
+        }
+
+        return new String(header, 0, length, StandardCharsets.ISO_8859_1).contains("%PDF-");
+    }
+
+    /**
+     * Renders the source PDF page by page and writes the compact copy.
+     *
+     * Rendering is serialized on a single renderer since the framework
+     * holds a process-wide lock around pdfium anyway; only the encoding
+     * of rendered pages runs in parallel on the worker pool.
+     *
+     * @param source             The source PDF.
+     * @param target             The file to write the optimized PDF to.
+     * @param cancellationSignal Signal to abort the work, may be null.
+     * @return true if the target was written, false if the time budget
+     * was exceeded or the job was cancelled.
+     * @throws IOException If the source cannot be rendered or the target written.
+     */
+    public boolean optimize(@NonNull File source, @NonNull File target,
+                            @Nullable CancellationSignal cancellationSignal) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1));
+        ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(source, ParcelFileDescriptor.MODE_READ_ONLY);
+        SharedRenderer renderer;
+        try {
+            renderer = new SharedRenderer(new PdfRenderer(descriptor));
+        } catch (IOException | RuntimeException e) {
+            descriptor.close();
+            throw e;
+        }
+        ExecutorService executor = null;
+
+        try {
+            int pageCount = renderer.getPageCount();
+            Log.d(LOG_TAG, "optimize: " + pageCount + " pages at " + dpi + " dpi on " + workers + " workers");
+
+            // Keep only a small window of pages in flight so encoded images
+            // are written out and released in page order.
+            executor = Executors.newFixedThreadPool(workers);
+            List<Future<EncodedPage>> pending = new ArrayList<>();
+            int window = workers * 2;
+            int submitted = 0;
+
+            try (PdfWriter writer = new PdfWriter(target, pageCount)) {
+                for (int i = 0; i < pageCount; i++) {
+                    while (submitted < pageCount && submitted < i + window) {
+                        final int index = submitted++;
+                        pending.add(executor.submit(() -> renderPage(renderer, index)));
+                    }
+
+                    if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                        Log.d(LOG_TAG, "optimize: cancelled");
+                        return false;
+                    }
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        Log.w(LOG_TAG, "optimize: time budget exceeded at page " + i);
+                        return false;
+                    }
+
+                    EncodedPage page;
+                    try {
+                        page = pending.get(i).get(remaining, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        Log.w(LOG_TAG, "optimize: time budget exceeded at page " + i);
+                        return false;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    } catch (Exception e) {
+                        throw new IOException("Failed to render page " + i, e);
+                    }
+
+                    pending.set(i, null);
+                    writer.writePage(page);
+                }
+            }
+
+            Log.d(LOG_TAG, "optimize: wrote " + target.length() + " bytes from " + source.length());
+            return true;
+        } finally {
+            // Workers still inside a native call cannot be stopped; the
+            // renderer is closed by whoever releases it last.
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            renderer.close();
+        }
+    }
+
+    /**
+     * Renders a single page and encodes it on the calling worker.
+     */
+    @NonNull
+    private EncodedPage renderPage(@NonNull SharedRenderer renderer, int index) {
+        Bitmap bitmap = null;
+
+        try {
+            float[] size = new float[2];
+            bitmap = renderer.render(index, size);
+            float widthPts = size[0];
+            float heightPts = size[1];
+
+            if (monochrome) {
+                return encodeBilevel(bitmap, widthPts, heightPts);
+            }
+            if (grayscale) {
+                EncodedPage gray = encodeGray(bitmap, widthPts, heightPts);
+                EncodedPage jpeg = encodeJpeg(bitmap, widthPts, heightPts);
+                return gray.data.length <= jpeg.data.length ? gray : jpeg;
+            }
+            return encodeJpeg(bitmap, widthPts, heightPts);
+        } finally {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * Gets the resolution for a page, lowered if needed so the rendered
+     * bitmap stays within the pixel budget.
+     */
+    private float getPageDpi(float widthPts, float heightPts) {
+        double pixelsPerDpi2 = (widthPts / 72.0) * (heightPts / 72.0);
+        double maxDpi = Math.sqrt(MAX_PIXELS / Math.max(pixelsPerDpi2, 1e-6));
+        return (float) Math.min(dpi, maxDpi);
+    }
+
+    /**
+     * Encodes a page as a DCT (JPEG) image.
+     */
+    @NonNull
+    private EncodedPage encodeJpeg(@NonNull Bitmap bitmap, float widthPts, float heightPts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+
+        return new EncodedPage(widthPts, heightPts, bitmap.getWidth(), bitmap.getHeight(),
+                "/DeviceRGB", 8, "/DCTDecode", out.toByteArray());
+    }
+
+    /**
+     * Encodes a page as a deflated 8-bit gray image. The bitmap is
+     * desaturated in place so it can also be encoded as JPEG afterwards.
+     */
+    @NonNull
+    private EncodedPage encodeGray(@NonNull Bitmap bitmap, float widthPts, float heightPts) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        byte[] gray = new byte[width];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            for (int y = 0; y < height; y++) {
+                bitmap.getPixels(row, 0, width, 0, y, width, 1);
+
+                for (int x = 0; x < width; x++) {
+                    int luma = luma(row[x]);
+                    gray[x] = (byte) luma;
+                    row[x] = Color.rgb(luma, luma, luma);
+                }
+
+                deflater.write(gray);
+                bitmap.setPixels(row, 0, width, 0, y, width, 1);
+            }
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+
+        return new EncodedPage(widthPts, heightPts, width, height,
+                "/DeviceGray", 8, "/FlateDecode", out.toByteArray());
+    }
+
+    /**
+     * Encodes a page as a deflated 1-bit image, thresholding on luminance.
+     */
+    @NonNull
+    private EncodedPage encodeBilevel(@NonNull Bitmap bitmap, float widthPts, float heightPts) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        byte[] packed = new byte[(width + 7) / 8];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            for (int y = 0; y < height; y++) {
+                bitmap.getPixels(row, 0, width, 0, y, width, 1);
+                Arrays.fill(packed, (byte) 0);
+
+                for (int x = 0; x < width; x++) {
+                    if (luma(row[x]) >= 128) {
+                        packed[x >> 3] |= (byte) (0x80 >> (x & 7));
+                    }
+                }
+
+                deflater.write(packed);
+            }
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+
+        return new EncodedPage(widthPts, heightPts, width, height,
+                "/DeviceGray", 1, "/FlateDecode", out.toByteArray());
+    }
+
+    private static int luma(int pixel) {
+        return (Color.red(pixel) * 299 + Color.green(pixel) * 587 + Color.blue(pixel) * 114) / 1000;
+    }
+
+    /**
+     * A renderer shared by the workers. Pages are rendered under a lock so
+     * at most one page is open, and the renderer is only closed while the
+     * lock is held, never while a page is open.
+     */
+    private class SharedRenderer {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile boolean closeRequested;
+        private PdfRenderer renderer;
+
+        SharedRenderer(@NonNull PdfRenderer renderer) {
+            this.renderer = renderer;
+        }
+
+        int getPageCount() {
+            lock.lock();
+            try {
+                return renderer.getPageCount();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Renders a page on white at the page resolution.
+         *
+         * @param index The page index.
+         * @param size  Receives the page width and height in points.
+         * @return The rendered bitmap.
+         */
+        @NonNull
+        Bitmap render(int index, @NonNull float[] size) {
+            lock.lock();
+            try {
+                if (renderer == null || closeRequested) {
+                    throw new CancellationException("Renderer closed");
+                }
+
+                try (PdfRenderer.Page page = renderer.openPage(index)) {
+                    size[0] = page.getWidth();
+                    size[1] = page.getHeight();
+
+                    float pageDpi = getPageDpi(size[0], size[1]);
+                    int width = Math.max(1, Math.round(size[0] * pageDpi / 72f));
+                    int height = Math.max(1, Math.round(size[1] * pageDpi / 72f));
+
+                    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                    bitmap.eraseColor(Color.WHITE);
+                    page.render(bitmap, null, null, PdfRenderer.Page.RENDER_MODE_FOR_PRINT);
+                    return bitmap;
+                }
+            } finally {
+                lock.unlock();
+                if (closeRequested) {
+                    tryClose();
+                }
+            }
+        }
+
+        /**
+         * Requests the renderer to be closed. If a worker holds it, that
+         * worker closes it once it has finished its page.
+         */
+        void close() {
+            closeRequested = true;
+            tryClose();
+        }
+
+        private void tryClose() {
+            if (lock.tryLock()) {
+                try {
+                    if (renderer != null) {
+                        renderer.close();
+                        renderer = null;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * A rendered page ready to be embedded as an image XObject.
+     */
+    private static class EncodedPage {
+        final float widthPts;
+        final float heightPts;
+        final int width;
+        final int height;
+        final String colorSpace;
+        final int bitsPerComponent;
+        final String filter;
+        final byte[] data;
+
+        EncodedPage(float widthPts, float heightPts, int width, int height,
+                    String colorSpace, int bitsPerComponent, String filter, byte[] data) {
+            this.widthPts = widthPts;
+            this.heightPts = heightPts;
+            this.width = width;
+            this.height = height;
+            this.colorSpace = colorSpace;
+            this.bitsPerComponent = bitsPerComponent;
+            this.filter = filter;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Minimal PDF writer producing one image per page.
+     *
+     * Object layout: 1 = catalog, 2 = page tree, then page, content
+     * stream and image for each page in order.
+     */
+    private static class PdfWriter implements AutoCloseable {
+        private final OutputStream out;
+        private final int pageCount;
+        private final long[] offsets;
+        private long position;
+        private int pagesWritten;
+
+        PdfWriter(@NonNull File target, int pageCount) throws IOException {
+            this.out = new BufferedOutputStream(new FileOutputStream(target));
+            this.pageCount = pageCount;
+            this.offsets = new long[3 + pageCount * 3];
+
+            write("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+
+            StringBuilder kids = new StringBuilder();
+            for (int i = 0; i < pageCount; i++) {
+                kids.append(pageObject(i)).append(" 0 R ");
+            }
+
+            beginObject(1);
+            write("<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+            beginObject(2);
+            write("<< /Type /Pages /Kids [" + kids + "] /Count " + pageCount + " >>\nendobj\n");
+        }
+
+        void writePage(@NonNull EncodedPage page) throws IOException {
+            int pageObj = pageObject(pagesWritten);
+            int contentObj = pageObj + 1;
+            int imageObj = pageObj + 2;
+            String width = format(page.widthPts);
+            String height = format(page.heightPts);
+
+            beginObject(pageObj);
+            write("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + width + " " + height + "]"
+                    + " /Resources << /XObject << /Im0 " + imageObj + " 0 R >> >>"
+                    + " /Contents " + contentObj + " 0 R >>\nendobj\n");
+
+            byte[] content = ("q " + width + " 0 0 " + height + " 0 0 cm /Im0 Do Q")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            beginObject(contentObj);
+            write("<< /Length " + content.length + " >>\nstream\n");
+            write(content);
+            write("\nendstream\nendobj\n");
+
+            beginObject(imageObj);
+            write("<< /Type /XObject /Subtype /Image /Width " + page.width + " /Height " + page.height
+                    + " /ColorSpace " + page.colorSpace + " /BitsPerComponent " + page.bitsPerComponent
+                    + " /Filter " + page.filter + " /Length " + page.data.length + " >>\nstream\n");
+            write(page.data);
+            write("\nendstream\nendobj\n");
+
+            pagesWritten++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (pagesWritten == pageCount) {
+                    long xref = position;
+                    StringBuilder table = new StringBuilder();
+                    table.append("xref\n0 ").append(offsets.length).append("\n");
+                    table.append("0000000000 65535 f \n");
+                    for (int i = 1; i < offsets.length; i++) {
+                        table.append(String.format(Locale.US, "%010d 00000 n \n", offsets[i]));
+                    }
+                    table.append("trailer\n<< /Size ").append(offsets.length).append(" /Root 1 0 R >>\n");
+                    table.append("startxref\n").append(xref).append("\n%%EOF\n");
+                    write(table.toString());
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        private static int pageObject(int index) {
+            return 3 + index * 3;
+        }
+
+        private static String format(float value) {
+            return String.format(Locale.US, "%.2f", value);
+        }
+
+        private void beginObject(int number) throws IOException {
+            offsets[number] = position;
+            write(number + " 0 obj\n");
+        }
+
+        private void write(@NonNull String text) throws IOException {
+            write(text.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        private void write(@NonNull byte[] bytes) throws IOException {
+            out.write(bytes);
+            position += bytes.length;
+        }
+    }
+}
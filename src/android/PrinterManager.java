@@ -30,6 +30,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -121,6 +123,25 @@ public class PrinterManager {
         return options.optInt("copies", 1);
     }
 
+    /**
+     * Gets the PDF optimization settings.
+     *
+     * @return The settings, empty for defaults, or null if disabled.
+     */
+    @Nullable
+    public JSONObject getOptimizeOptions() {
+        Object optimize = options.opt("optimize");
+
+        if (optimize instanceof JSONObject) {
+            return (JSONObject) optimize;
+        }
+        if (Boolean.TRUE.equals(optimize)) {
+            return new JSONObject();
+        }
+
+        return null;
+    }
+
     /**
      * Converts options to PrintAttributes.Builder.
      *
@@ -205,6 +226,9 @@ public class PrinterManager {
     @NonNull
     public PrintDocumentAdapter createPrintAdapter() {
         return new PrintDocumentAdapter() {
+            private PrintAttributes layoutAttributes;
+            private final OptimizedDocument optimizedDocument = new OptimizedDocument();
+
             @Override
             public void onLayout(PrintAttributes oldAttributes, PrintAttributes newAttributes,
                                  CancellationSignal cancellationSignal,
@@ -215,6 +239,8 @@ public class PrinterManager {
                     return;
                 }
 
+                layoutAttributes = newAttributes;
+
                 PrintDocumentInfo.Builder builder = new PrintDocumentInfo.Builder(getJobName());
                 builder.setContentType(PrintDocumentInfo.CONTENT_TYPE_DOCUMENT);
                 builder.setPageCount(PrintDocumentInfo.PAGE_COUNT_UNKNOWN);
@@ -245,8 +271,14 @@ public class PrinterManager {
                     return;
                 }
 
+                String optimizeSource = getOptimizeSource(content);
+                if (optimizeSource != null) {
+                    Log.d(LOG_TAG, "onWrite: optimizing PDF before spooling");
+                    writeOptimizedPdf(optimizeSource, layoutAttributes, optimizedDocument,
+                            destination, cancellationSignal, callback);
+                }
                 // Handle base64 data URI (data:application/pdf;base64,... or data:image/...;base64,...)
-                if (content.startsWith("data:") && content.contains(";base64,")) {
+                else if (content.startsWith("data:") && content.contains(";base64,")) {
                     Log.d(LOG_TAG, "onWrite: handling base64 data URI");
                     writePdfFromBase64(content, destination, callback);
                 }
@@ -271,9 +303,174 @@ public class PrinterManager {
                     callback.onWriteFailed("Unsupported content type");
                 }
             }
+
+            @Override
+            public void onFinish() {
+                optimizedDocument.release();
+            }
         };
     }
 
+    /**
+     * Gets the path to optimize if optimization is enabled and the content
+     * may be a PDF. The PDF header is checked before optimizing.
+     *
+     * @param content The content to print.
+     * @return The path for openInputStream or null.
+     */
+    @Nullable
+    private String getOptimizeSource(@NonNull String content) {
+        if (getOptimizeOptions() == null) {
+            return null;
+        }
+
+        if (content.startsWith("data:application/pdf") && content.contains(";base64,")) {
+            return content;
+        }
+        if (content.startsWith("file://")) {
+            return content.substring(7);
+        }
+        if (content.startsWith("content://") || content.endsWith(".pdf")) {
+            return content;
+        }
+
+        return null;
+    }
+
+    /**
+     * Re-renders the PDF at the negotiated resolution and color mode and
+     * writes the smaller of the optimized and original documents.
+     * Runs off the main thread. Any failure of the optimization itself
+     * spools the original document; only errors reading the source or
+     * writing the destination fail the job.
+     */
+    private void writeOptimizedPdf(String path, @Nullable PrintAttributes attributes,
+                                   @NonNull OptimizedDocument document,
+                                   ParcelFileDescriptor destination,
+                                   CancellationSignal cancellationSignal,
+                                   PrintDocumentAdapter.WriteResultCallback callback) {
+        PrintAttributes defaults = toPrintAttributes().build();
+        Resolution resolution = attributes != null && attributes.getResolution() != null
+                ? attributes.getResolution() : defaults.getResolution();
+        int colorMode = attributes != null && attributes.getColorMode() != 0
+                ? attributes.getColorMode() : defaults.getColorMode();
+
+        PdfOptimizer optimizer = new PdfOptimizer(getOptimizeOptions(), resolution.getHorizontalDpi(),
+                colorMode == PrintAttributes.COLOR_MODE_MONOCHROME);
+
+        document.execute(() -> {
+            try {
+                File cacheDir = activity.getCacheDir();
+
+                if (document.source == null) {
+                    File source = File.createTempFile("print", ".pdf", cacheDir);
+                    try (InputStream input = openInputStream(path)) {
+                        copy(input, new FileOutputStream(source));
+                    } catch (IOException | RuntimeException e) {
+                        source.delete();
+                        throw e;
+                    }
+                    document.source = source;
+                }
+
+                String key = optimizer.getCacheKey();
+                if (!key.equals(document.key)) {
+                    document.setOptimized(null, null);
+                    File optimized = null;
+
+                    try {
+                        if (optimizer.shouldOptimize(document.source)) {
+                            optimized = File.createTempFile("print-optimized", ".pdf", cacheDir);
+                            if (!optimizer.optimize(document.source, optimized, cancellationSignal)
+                                    || optimized.length() >= document.source.length()) {
+                                optimized.delete();
+                                optimized = null;
+                            }
+                        }
+                    } catch (Exception | OutOfMemoryError e) {
+                        Log.w(LOG_TAG, "writeOptimizedPdf: optimization failed, spooling original", e);
+                        if (optimized != null) optimized.delete();
+                        optimized = null;
+                    }
+
+                    // A cancelled run says nothing about this key, try again next time
+                    document.setOptimized(optimized, cancellationSignal.isCanceled() ? null : key);
+                }
+
+                if (cancellationSignal.isCanceled()) {
+                    activity.runOnUiThread(callback::onWriteCancelled);
+                    return;
+                }
+
+                File result = document.optimized != null ? document.optimized : document.source;
+                Log.d(LOG_TAG, "writeOptimizedPdf: writing " + result.length() + " of " + document.source.length() + " bytes");
+                try (InputStream input = new FileInputStream(result)) {
+                    copy(input, new FileOutputStream(destination.getFileDescriptor()));
+                }
+
+                activity.runOnUiThread(() -> callback.onWriteFinished(new PageRange[]{PageRange.ALL_PAGES}));
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Error writing optimized PDF", e);
+                activity.runOnUiThread(() -> callback.onWriteFailed(e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Local copy of the print content and its optimized version, kept for
+     * the lifetime of a print adapter so that re-layouts in print preview
+     * only re-optimize when the resolution or color mode changes.
+     * All work runs on a single background thread, in order.
+     */
+    private static class OptimizedDocument {
+        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+        File source;
+        File optimized;
+        String key;
+
+        void execute(@NonNull Runnable task) {
+            executor.execute(task);
+        }
+
+        void setOptimized(@Nullable File file, @Nullable String key) {
+            if (optimized != null && optimized != file) {
+                optimized.delete();
+            }
+            this.optimized = file;
+            this.key = key;
+        }
+
+        /**
+         * Deletes the temporary files once pending writes are done.
+         */
+        void release() {
+            executor.execute(() -> {
+                setOptimized(null, null);
+                if (source != null) {
+                    source.delete();
+                    source = null;
+                }
+            });
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Copies the input to the output and closes the output.
+     */
+    private void copy(@NonNull InputStream input, @NonNull OutputStream output) throws IOException {
+        try {
+            byte[] buf = new byte[8192];
+            int bytesRead;
+
+            while ((bytesRead = input.read(buf)) > 0) {
+                output.write(buf, 0, bytesRead);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
     /**
      * Writes a PDF file to the print destination.
      */
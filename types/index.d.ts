@@ -30,6 +30,22 @@ export interface PaperSize {
     height?: PaperDimension;
 }
 
+/**
+ * PDF optimization options (Android only)
+ */
+export interface OptimizeOptions {
+    /** Only optimize documents of at least this many bytes (default 1048576) */
+    minSize?: number;
+    /** Time budget in milliseconds before falling back to the original (default 30000) */
+    timeout?: number;
+    /** JPEG quality from 1 to 100 (default 75) */
+    quality?: number;
+    /** Maximum render resolution, capped by the printer resolution (default 200) */
+    dpi?: number;
+    /** Encode pages as 1-bit black and white images */
+    monochrome?: boolean;
+}
+
 /**
  * Print options
  */
@@ -48,6 +64,8 @@ export interface PrintOptions {
     printer?: string;
     /** Paper size configuration */
     paper?: PaperSize | string;
+    /** Recompress PDFs before spooling (Android only) */
+    optimize?: boolean | OptimizeOptions;
 }
 
 /**